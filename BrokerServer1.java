@@ -1,17 +1,65 @@
+import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
 public class BrokerServer1 extends WebSocketServer {
-    private static WebSocket hostSocket = null;
+    private static volatile WebSocket hostSocket = null;
+    private static volatile String hostToken = null;
+    // Viewers are keyed by resume token so a reconnecting viewer takes over its own slot
     private static final Map<String, WebSocket> viewerSockets = new ConcurrentHashMap<>();
+    private static final Map<WebSocket, String> sessionTokens = new ConcurrentHashMap<>();
+    // Per-viewer send locks; the library synchronizes its close path on the socket itself
+    private static final Map<WebSocket, Object> sendLocks = new ConcurrentHashMap<>();
     private static final int MAX_FRAME_SIZE = 64 * 1024; // 64KB chunks
+    private static final int MAX_IMAGE_SIZE = 16 * 1024 * 1024; // Reject anything larger from the host
+    private static final int SESSION_RESUME_GRACE_SECONDS = 60;
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private static ScheduledFuture<?> hostExpiry = null;
+
+    // Host session and frame assembly state below is guarded by the BrokerServer1.class lock.
+    // Never call into the library (send/close) while holding it: its close path calls onClose
+    // with the socket's monitor held, and onClose takes this lock.
+    private static PendingFrame pendingFrame = null;
+    private static long nextFrameId = 1;
+    private static volatile Frame lastFrame = null;
+
+    // Frame being assembled from the host's size/chunks/end sequence
+    private static final class PendingFrame {
+        final int size;
+        final String checksum;
+        final ByteArrayOutputStream data;
+
+        PendingFrame(int size, String checksum) {
+            this.size = size;
+            this.checksum = checksum;
+            this.data = new ByteArrayOutputStream(size);
+        }
+    }
+
+    private static final class Frame {
+        final long id;
+        final byte[] data;
+        final String checksum;
+
+        Frame(long id, byte[] data, String checksum) {
+            this.id = id;
+            this.data = data;
+            this.checksum = checksum;
+        }
+    }
 
     public BrokerServer1(int port) {
         super(new InetSocketAddress(port));
@@ -20,86 +68,266 @@ public class BrokerServer1 extends WebSocketServer {
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         String clientType = handshake.getFieldValue("clientType");
+        String resumeToken = handshake.getFieldValue("resumeToken");
         if ("host".equals(clientType)) {
-            if (hostSocket == null) {
-                hostSocket = conn;
-                System.out.println("Host connected: " + conn.getRemoteSocketAddress());
+            openHost(conn, resumeToken);
+        } else if ("viewer".equals(clientType)) {
+            openViewer(conn, resumeToken, handshake.getFieldValue("lastFrameId"));
+        }
+    }
+
+    private static void openHost(WebSocket conn, String resumeToken) {
+        boolean resumed;
+        String token;
+        WebSocket staleSocket;
+        synchronized (BrokerServer1.class) {
+            resumed = hostToken != null && hostToken.equals(resumeToken);
+            boolean hostAttached = hostSocket != null && hostSocket.isOpen();
+            // A detached host's slot is only worth holding while viewers are waiting on it;
+            // otherwise let a restarted (token-less) host take over straight away
+            if (!resumed && (hostAttached || (hostToken != null && hasOpenViewers()))) {
+                token = null;
+                staleSocket = null;
             } else {
-                conn.close(1000, "Only one Host can connect at a time.");
+                if (hostExpiry != null) {
+                    hostExpiry.cancel(false);
+                    hostExpiry = null;
+                }
+                if (!resumed) {
+                    // A different host must not inherit the previous host's screen
+                    hostToken = UUID.randomUUID().toString();
+                    lastFrame = null;
+                }
+                token = hostToken;
+                staleSocket = hostSocket;
+                hostSocket = conn;
+                sessionTokens.put(conn, token);
+                pendingFrame = null;
             }
-        } else if ("viewer".equals(clientType)) {
-            viewerSockets.put(conn.getRemoteSocketAddress().toString(), conn);
-            System.out.println("Viewer connected: " + conn.getRemoteSocketAddress());
-            // Notify host that a viewer connected
-            if (hostSocket != null && hostSocket.isOpen()) {
-                hostSocket.send("viewer_connected");
+        }
+
+        if (token == null) {
+            conn.close(1000, "Only one Host can connect at a time.");
+            return;
+        }
+        if (resumed && staleSocket != null && staleSocket != conn && staleSocket.isOpen()) {
+            // The old link has not timed out yet; the token proves this is the same host
+            staleSocket.close(1000, "Host session resumed on a new connection");
+        }
+
+        conn.send("session:" + token);
+        System.out.println((resumed ? "Host resumed: " : "Host connected: ") + conn.getRemoteSocketAddress());
+
+        // Viewers stay attached while the host is away, so tell the host to start capturing again
+        if (hasOpenViewers()) {
+            conn.send("viewer_connected");
+        }
+    }
+
+    private static void openViewer(WebSocket conn, String resumeToken, String lastFrameId) {
+        boolean resumed = resumeToken != null && viewerSockets.containsKey(resumeToken);
+        String token = resumed ? resumeToken : UUID.randomUUID().toString();
+
+        Object sendLock = new Object();
+        sendLocks.put(conn, sendLock);
+        WebSocket staleSocket = viewerSockets.put(token, conn);
+        if (staleSocket != null && staleSocket != conn && staleSocket.isOpen()) {
+            staleSocket.close(1000, "Viewer session resumed on a new connection");
+        }
+        sessionTokens.put(conn, token);
+        conn.send("session:" + token);
+        System.out.println((resumed ? "Viewer resumed: " : "Viewer connected: ") + conn.getRemoteSocketAddress());
+
+        // Only send what the viewer has not already shown. Frames are complete images,
+        // so catching up means sending the latest one, and nothing if it is current.
+        // lastFrame is read under the viewer's send lock so a concurrent broadcast
+        // can never be followed by an older catch-up frame.
+        synchronized (sendLock) {
+            Frame frame = lastFrame;
+            if (frame != null && (!resumed || parseFrameId(lastFrameId) < frame.id)) {
+                sendFrame(conn, frame);
             }
         }
+
+        // Notify host that a viewer connected
+        WebSocket host = hostSocket;
+        if (host != null && host.isOpen()) {
+            host.send("viewer_connected");
+        }
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        if (conn == hostSocket) {
-            hostSocket = null;
-            System.out.println("Host disconnected");
-        } else {
-            viewerSockets.remove(conn.getRemoteSocketAddress().toString());
+        sendLocks.remove(conn);
+        String token = sessionTokens.remove(conn);
+        if (token == null) {
+            // Connection was refused in onOpen
+            return;
+        }
+
+        if (token.equals(hostToken)) {
+            synchronized (BrokerServer1.class) {
+                if (conn != hostSocket) {
+                    return; // replaced by a resumed connection
+                }
+                hostSocket = null;
+                pendingFrame = null;
+                // Cancelled in openHost when the host resumes or is replaced
+                hostExpiry = scheduler.schedule(() -> {
+                    synchronized (BrokerServer1.class) {
+                        if (hostSocket == null && token.equals(hostToken)) {
+                            hostToken = null;
+                            hostExpiry = null;
+                            lastFrame = null;
+                            System.out.println("Host session expired");
+                        }
+                    }
+                }, SESSION_RESUME_GRACE_SECONDS, TimeUnit.SECONDS);
+            }
+            System.out.println("Host disconnected, holding session for " + SESSION_RESUME_GRACE_SECONDS + "s");
+        } else if (viewerSockets.get(token) == conn) {
             System.out.println("Viewer disconnected: " + conn.getRemoteSocketAddress());
+            scheduler.schedule(() -> {
+                if (viewerSockets.remove(token, conn)) {
+                    System.out.println("Viewer session expired: " + conn.getRemoteSocketAddress());
+                }
+            }, SESSION_RESUME_GRACE_SECONDS, TimeUnit.SECONDS);
         }
     }
 
     @Override
     public void onMessage(WebSocket conn, ByteBuffer message) {
+        synchronized (BrokerServer1.class) {
+            if (conn != hostSocket || pendingFrame == null) {
+                return;
+            }
+            if (pendingFrame.data.size() + message.remaining() > pendingFrame.size) {
+                System.err.println("Dropping frame from host: chunks exceed declared size " + pendingFrame.size);
+                pendingFrame = null;
+                return;
+            }
+            byte[] chunk = new byte[message.remaining()];
+            message.get(chunk);
+            pendingFrame.data.write(chunk, 0, chunk.length);
+        }
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
         if (conn == hostSocket) {
-            // Forward image data to all viewers
-            byte[] imageData = new byte[message.remaining()];
-            message.get(imageData);
-
-            // Calculate checksum
-            String checksum = calculateChecksum(imageData);
-
-            // Send size of image data and checksum before chunking
-            String sizeMessage = "size:" + imageData.length + ":" + checksum;
-            for (WebSocket viewer : viewerSockets.values()) {
-                if (viewer.isOpen()) {
-                    viewer.send(sizeMessage);
-                }
+            if (message.startsWith("size:")) {
+                startFrame(conn, message);
+            } else if (message.equals("end")) {
+                completeFrame(conn);
             }
+        } else if (viewerSockets.containsValue(conn)) {
+            // Forward control messages from viewer to host
+            WebSocket host = hostSocket;
+            if (host != null && host.isOpen()) {
+                host.send(message);
+            }
+        }
+    }
 
-            // Split into smaller chunks if necessary
-            int offset = 0;
-            while (offset < imageData.length) {
-                int chunkSize = Math.min(MAX_FRAME_SIZE, imageData.length - offset);
-                ByteBuffer chunk = ByteBuffer.wrap(imageData, offset, chunkSize);
+    private static synchronized void startFrame(WebSocket conn, String message) {
+        if (conn != hostSocket) {
+            return;
+        }
+        pendingFrame = null;
+        String[] parts = message.split(":");
+        if (parts.length != 3) {
+            System.err.println("Invalid size message from host: " + message);
+            return;
+        }
+        try {
+            int size = Integer.parseInt(parts[1]);
+            if (size <= 0 || size > MAX_IMAGE_SIZE) {
+                System.err.println("Rejecting frame from host with size: " + size);
+                return;
+            }
+            pendingFrame = new PendingFrame(size, parts[2]);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid size message from host: " + message);
+        }
+    }
 
-                for (WebSocket viewer : viewerSockets.values()) {
-                    if (viewer.isOpen()) {
-                        viewer.send(chunk.duplicate());
-                    }
-                }
-                offset += chunkSize;
+    private static void completeFrame(WebSocket conn) {
+        Frame frame;
+        synchronized (BrokerServer1.class) {
+            PendingFrame pending = pendingFrame;
+            pendingFrame = null;
+            if (conn != hostSocket || pending == null) {
+                return;
             }
 
-            // Notify viewers that transmission is complete
-            for (WebSocket viewer : viewerSockets.values()) {
-                if (viewer.isOpen()) {
-                    viewer.send("end");
-                }
+            byte[] imageData = pending.data.toByteArray();
+            if (imageData.length != pending.size || !calculateChecksum(imageData).equals(pending.checksum)) {
+                System.err.println("Dropping corrupt frame from host: expected " + pending.size +
+                                   " bytes, got " + imageData.length);
+                return;
             }
 
-            System.out.println("Forwarded image data: " + imageData.length + " bytes to " + 
-                                 viewerSockets.size() + " viewers");
+            frame = new Frame(nextFrameId++, imageData, pending.checksum);
+            lastFrame = frame;
         }
+
+        int viewers = 0;
+        for (WebSocket viewer : viewerSockets.values()) {
+            if (viewer.isOpen() && sendFrame(viewer, frame)) {
+                viewers++;
+            }
+        }
+
+        System.out.println("Forwarded frame " + frame.id + ": " + frame.data.length + " bytes to " +
+                             viewers + " viewers");
     }
 
-    @Override
-    public void onMessage(WebSocket conn, String message) {
-        if (viewerSockets.containsValue(conn)) {
-            // Forward control messages from viewer to host
-            if (hostSocket != null && hostSocket.isOpen()) {
-                hostSocket.send(message);
+    private static boolean sendFrame(WebSocket viewer, Frame frame) {
+        Object sendLock = sendLocks.get(viewer);
+        if (sendLock == null) {
+            return false; // viewer already closed
+        }
+        // Broadcasts and resume catch-up can target the same viewer from different
+        // threads; the size/chunks/end sequence must not interleave on one connection
+        synchronized (sendLock) {
+            try {
+                // Send size, checksum and frame id before chunking
+                viewer.send("size:" + frame.data.length + ":" + frame.checksum + ":" + frame.id);
+
+                // Split into smaller chunks if necessary
+                int offset = 0;
+                while (offset < frame.data.length) {
+                    int chunkSize = Math.min(MAX_FRAME_SIZE, frame.data.length - offset);
+                    viewer.send(ByteBuffer.wrap(frame.data, offset, chunkSize));
+                    offset += chunkSize;
+                }
+
+                // Notify viewer that transmission is complete
+                viewer.send("end");
+                return true;
+            } catch (WebsocketNotConnectedException e) {
+                System.err.println("Viewer closed while sending frame " + frame.id + ": " +
+                                   viewer.getRemoteSocketAddress());
+                return false;
+            }
+        }
+    }
+
+    private static boolean hasOpenViewers() {
+        for (WebSocket viewer : viewerSockets.values()) {
+            if (viewer.isOpen()) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private static long parseFrameId(String frameId) {
+        try {
+            return frameId == null || frameId.isEmpty() ? 0 : Long.parseLong(frameId);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
     }
 
     @Override
@@ -8,6 +8,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
@@ -25,6 +26,9 @@ public class HostApplication1 {
     private static volatile boolean isViewerConnected = false;
     private static final int CHUNK_SIZE = 32 * 1024; // 32KB chunks
     private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private static final long RECONNECT_BASE_DELAY_MS = 250;
+    private static final long RECONNECT_MAX_DELAY_MS = 30_000;
+    private static int reconnectAttempts = 0;
     
     public static void main(String[] args) {
         try {
@@ -50,7 +54,12 @@ public class HostApplication1 {
 
             @Override
             public void onMessage(String message) {
-                if (message.equals("viewer_connected")) {
+                if (message.startsWith("session:")) {
+                    // Presented on reconnect so the broker keeps our viewers attached
+                    client.addHeader("resumeToken", message.substring(8));
+                    // Only an accepted session counts; the broker may refuse us after the handshake
+                    reconnectAttempts = 0;
+                } else if (message.equals("viewer_connected")) {
                     isViewerConnected = true;
                     System.out.println("Viewer connected, starting screen capture");
                 } else if (message.startsWith("control:")) {
@@ -62,13 +71,7 @@ public class HostApplication1 {
             public void onClose(int code, String reason, boolean remote) {
                 System.out.println("Disconnected from broker: " + reason);
                 isViewerConnected = false;
-                scheduler.schedule(() -> {
-                    try {
-                        client.reconnect();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }, 5, TimeUnit.SECONDS);
+                scheduleReconnect();
             }
 
             @Override
@@ -86,6 +89,21 @@ public class HostApplication1 {
         }
     }
 
+    private static void scheduleReconnect() {
+        // Jittered exponential backoff: retry fast after a brief drop, back off when the broker is down
+        long ceiling = Math.min(RECONNECT_MAX_DELAY_MS, RECONNECT_BASE_DELAY_MS << Math.min(reconnectAttempts, 16));
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        reconnectAttempts++;
+        System.out.println("Reconnecting in " + delay + " ms (attempt " + reconnectAttempts + ")");
+        scheduler.schedule(() -> {
+            try {
+                client.reconnect();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
     private static void initializeRobot() throws AWTException {
         robot = new Robot();
         robot.setAutoDelay(0);
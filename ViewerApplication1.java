@@ -9,6 +9,10 @@ import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import javax.imageio.ImageIO;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
@@ -23,6 +27,12 @@ public class ViewerApplication1 {
     private static volatile int expectedImageSize = 0;
     private static volatile int receivedImageSize = 0;
     private static String expectedChecksum = "";
+    private static volatile long expectedFrameId = 0;
+    private static volatile long lastFrameId = 0;
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private static final long RECONNECT_BASE_DELAY_MS = 250;
+    private static final long RECONNECT_MAX_DELAY_MS = 30_000;
+    private static int reconnectAttempts = 0;
 
     public static void main(String[] args) {
         try {
@@ -44,11 +54,17 @@ public class ViewerApplication1 {
             @Override
             public void onMessage(String message) {
                 try {
-                    if (message.startsWith("size:")) {
+                    if (message.startsWith("session:")) {
+                        // Presented on reconnect so the broker only sends frames we have not shown
+                        client.addHeader("resumeToken", message.substring(8));
+                        // Only an accepted session counts; the broker may refuse us after the handshake
+                        reconnectAttempts = 0;
+                    } else if (message.startsWith("size:")) {
                         String[] parts = message.split(":");
-                        if (parts.length == 3) {
+                        if (parts.length == 3 || parts.length == 4) {
                             expectedImageSize = Integer.parseInt(parts[1]);
                             expectedChecksum = parts[2];
+                            expectedFrameId = parts.length == 4 ? Long.parseLong(parts[3]) : 0;
                             imageChunks.clear();
                             receivedImageSize = 0;
                             receivingImage = true;
@@ -82,6 +98,8 @@ public class ViewerApplication1 {
             public void onClose(int code, String reason, boolean remote) {
                 System.out.println("Disconnected from broker: " + reason);
                 receivingImage = false;
+                // Keep showing the last image while we reconnect
+                scheduleReconnect();
             }
 
             @Override
@@ -99,6 +117,22 @@ public class ViewerApplication1 {
         }
     }
 
+    private static void scheduleReconnect() {
+        // Jittered exponential backoff: retry fast after a brief drop, back off when the broker is down
+        long ceiling = Math.min(RECONNECT_MAX_DELAY_MS, RECONNECT_BASE_DELAY_MS << Math.min(reconnectAttempts, 16));
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        reconnectAttempts++;
+        System.out.println("Reconnecting in " + delay + " ms (attempt " + reconnectAttempts + ")");
+        scheduler.schedule(() -> {
+            try {
+                client.addHeader("lastFrameId", String.valueOf(lastFrameId));
+                client.reconnect();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
     private static void initializeViewerFrame() {
         frame = new JFrame("Viewer Application");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -175,6 +209,9 @@ public class ViewerApplication1 {
                     if (screenImage == null) {
                         System.err.println("Failed to decode image. Image data might be corrupted.");
                     } else {
+                        if (expectedFrameId > 0) {
+                            lastFrameId = expectedFrameId;
+                        }
                         System.out.println("Image decoded successfully");
                         frame.repaint();
                     }